@@ -0,0 +1,85 @@
+package com.cisco.josouthe;
+
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.security.cert.CertificateException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Small fixed set of failure classes for backend exit calls, so an upstream outage is reported as a handful of
+ * identical, cached error messages instead of one freshly built exception string per request. Failures are classified
+ * by exception class and root cause type, and the message strings are constants, so already interned.
+ */
+public enum ExitCallErrorFingerprint {
+    CONNECT_REFUSED("PingAccess backend error: connection refused"),
+    TIMEOUT("PingAccess backend error: timeout"),
+    TLS("PingAccess backend error: TLS failure"),
+    CONNECTION_RESET("PingAccess backend error: connection reset"),
+    CONNECTION_CLOSED("PingAccess backend error: connection closed"),
+    UNKNOWN_HOST("PingAccess backend error: unknown host"),
+    NO_ROUTE_TO_HOST("PingAccess backend error: no route to host"),
+    IO_ERROR("PingAccess backend error: I/O failure"),
+    OTHER("PingAccess backend error: other failure");
+
+    private static final int MAX_CAUSE_DEPTH = 10;
+    private final String message;
+
+    ExitCallErrorFingerprint(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() { return message; }
+
+    /*
+    walk the whole cause chain, outermost first, and return the first specific fingerprint; wrappers like
+    CompletionException and plain IOException only decide the result when nothing more specific is in the chain
+     */
+    public static ExitCallErrorFingerprint classify( Throwable throwable ) {
+        ExitCallErrorFingerprint fallback = OTHER;
+        Throwable current = throwable;
+        int depth = 0;
+        while( current != null && depth++ <= MAX_CAUSE_DEPTH ) {
+            ExitCallErrorFingerprint fingerprint = classifySingle(current);
+            if( fingerprint != OTHER && fingerprint != IO_ERROR ) return fingerprint;
+            if( fingerprint == IO_ERROR ) fallback = IO_ERROR;
+            if( current.getCause() == current ) break;
+            current = current.getCause();
+        }
+        return fallback;
+    }
+
+    private static boolean isTimeout( Throwable throwable, String message ) {
+        //netty's ConnectTimeoutException and the JDK's HttpConnectTimeoutException subclass ConnectException/IOException
+        if( throwable instanceof SocketTimeoutException || throwable instanceof TimeoutException ) return true;
+        if( throwable.getClass().getSimpleName().contains("Timeout") ) return true;
+        return message != null && message.toLowerCase().contains("timed out");
+    }
+
+    private static ExitCallErrorFingerprint classifySingle( Throwable throwable ) {
+        if( throwable instanceof CompletionException || throwable instanceof ExecutionException ) return OTHER;
+        String message = throwable.getMessage();
+        if( isTimeout(throwable, message) ) return TIMEOUT;
+        if( throwable instanceof ConnectException ) return CONNECT_REFUSED;
+        if( throwable instanceof SSLException || throwable instanceof CertificateException ) return TLS;
+        if( throwable instanceof UnknownHostException ) return UNKNOWN_HOST;
+        if( throwable instanceof NoRouteToHostException ) return NO_ROUTE_TO_HOST;
+        if( throwable instanceof ClosedChannelException || throwable instanceof EOFException ) return CONNECTION_CLOSED;
+        //PingAccess and netty have their own TLS exception types we cannot reference directly
+        String className = throwable.getClass().getSimpleName();
+        if( className.contains("Ssl") || className.contains("SSL") ) return TLS;
+        if( throwable instanceof IOException ) {
+            //NIO and netty's native transport report a reset as a plain IOException, not a SocketException
+            if( message != null && (message.contains("reset") || message.contains("Broken pipe")) ) return CONNECTION_RESET;
+            return IO_ERROR;
+        }
+        return OTHER;
+    }
+}
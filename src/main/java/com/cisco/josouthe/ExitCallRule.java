@@ -0,0 +1,61 @@
+package com.cisco.josouthe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A rule from CustomPlugin.properties deciding whether an InternalHttpClient.call gets a full exit call, a sampled
+ * one, or is left uninstrumented and only counted. The pattern is compiled once at load time and searched against
+ * "host:port/path" of the target, so health checks and PingFederate token introspection can be thinned out cheaply.
+ */
+public class ExitCallRule {
+    public enum Action { FULL, SAMPLE, SKIP }
+
+    private final String name;
+    private final Pattern pattern;
+    private final Action action;
+    private final int sampleRate;
+    private final AtomicLong callCounter = new AtomicLong();
+    private final IntervalCounter uninstrumentedCounter = new IntervalCounter();
+
+    public ExitCallRule( String name, Pattern pattern, Action action, int sampleRate ) {
+        this.name = name;
+        this.pattern = pattern;
+        this.action = action;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public String getName() { return name; }
+    public Action getAction() { return action; }
+    public int getSampleRate() { return sampleRate; }
+
+    public boolean matches( CharSequence target ) {
+        return pattern.matcher(target).find();
+    }
+
+    /*
+    FULL always instruments, SKIP never does, SAMPLE instruments 1 in sampleRate calls
+     */
+    public boolean shouldInstrument() {
+        switch (action) {
+            case FULL: return true;
+            case SKIP: return false;
+            default: return callCounter.getAndIncrement() % sampleRate == 0;
+        }
+    }
+
+    /*
+    counts a call this rule left uninstrumented, the metric flush timer drains the count
+     */
+    public void countUninstrumented() {
+        uninstrumentedCounter.increment();
+    }
+
+    public long drainUninstrumented() {
+        return uninstrumentedCounter.drain();
+    }
+
+    public String toString() {
+        return String.format("ExitCallRule %s pattern: '%s' action: %s sample rate: %d", name, pattern.pattern(), action, sampleRate);
+    }
+}
@@ -0,0 +1,27 @@
+package com.cisco.josouthe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free counter for hot path events that are reported to the metric publisher once per time interval, the hot
+ * path only increments it and the metric flush timer drains everything counted since the previous report.
+ */
+public class IntervalCounter {
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong unreported = new AtomicLong();
+
+    /*
+    returns the running total, which is never reset
+     */
+    public long increment() {
+        unreported.incrementAndGet();
+        return total.incrementAndGet();
+    }
+
+    /*
+    returns the count since the last drain and resets it, called by the metric flush timer
+     */
+    public long drain() {
+        return unreported.getAndSet(0);
+    }
+}
@@ -80,6 +80,19 @@ public abstract class MyBaseInterceptor extends AGenericInterceptor {
         return new HashMap<>();
     }
 
+    protected String getProperty( String key, String defaultValue ) {
+        return this.properties.getProperty( key, defaultValue );
+    }
+
+    protected int getIntegerProperty( String key, int defaultValue ) {
+        try {
+            return Integer.parseInt( getProperty( key, String.valueOf(defaultValue) ).trim() );
+        } catch (NumberFormatException e) {
+            this.getLogger().info("Invalid integer for property "+ key +", using default "+ defaultValue);
+            return defaultValue;
+        }
+    }
+
     protected boolean isAnalyticsEnabledForClass( String className ) {
         return this.properties.getProperty( className +"-enableAnalyticsData", "true").toLowerCase().equals("true");
     }
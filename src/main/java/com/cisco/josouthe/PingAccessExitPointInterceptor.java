@@ -12,6 +12,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 //import com.pingidentity.pa.sdk.http.Response;
 
@@ -27,6 +33,12 @@ import java.util.concurrent.CompletionStage;
  *
  * John Southerland
  * Nov 18, 2021 : refactored to use my latest techniques, and help in troubleshooting a customer on v6.1.5
+ *
+ * Oct 19, 2026 : exit call failures are fingerprinted and counted per backend, markAsError gets a cached message per
+ * fingerprint, and only a sampled subset of the full exception strings is attached to snapshots
+ *
+ * Oct 19, 2026 : exit call rules matched against host:port/path can sample or skip high frequency internal calls,
+ * such as health checks and token introspection, skipped calls are only counted into a custom metric
  */
 public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
 
@@ -38,8 +50,32 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
     IReflector getSchemeReflector;
     IReflector getPortReflector;
 
+    protected static final String ERROR_SNAPSHOT_SAMPLE_RATE_PROPERTY = "exitCallErrorSnapshotSampleRate";
+    protected static final int DEFAULT_ERROR_SNAPSHOT_SAMPLE_RATE = 100;
+    private int errorSnapshotSampleRate;
+    protected static final String METRIC_INTERVAL_SECONDS_PROPERTY = "exitCallMetricIntervalSeconds";
+    protected static final int DEFAULT_METRIC_INTERVAL_SECONDS = 60;
+    protected static final String BACKEND_ERROR_METRIC_PREFIX = "Custom Metrics|PingAccess|Backend Errors|";
+    private long metricIntervalMillis;
+    private final ConcurrentHashMap<String, IntervalCounter[]> backendErrorCounters = new ConcurrentHashMap<String, IntervalCounter[]>();
+    private ScheduledExecutorService metricFlushScheduler;
+
+    protected static final String EXIT_CALL_RULES_PROPERTY = "exitCallRules";
+    protected static final String EXIT_CALL_RULE_PREFIX = "exitCallRule.";
+    protected static final String UNINSTRUMENTED_METRIC_PREFIX = "Custom Metrics|PingAccess|Uninstrumented Exit Calls|";
+    private ExitCallRule[] exitCallRules;
+
     public PingAccessExitPointInterceptor(){
         super();
+        errorSnapshotSampleRate = Math.max(1, getIntegerProperty(ERROR_SNAPSHOT_SAMPLE_RATE_PROPERTY, DEFAULT_ERROR_SNAPSHOT_SAMPLE_RATE));
+        metricIntervalMillis = Math.max(1, getIntegerProperty(METRIC_INTERVAL_SECONDS_PROPERTY, DEFAULT_METRIC_INTERVAL_SECONDS)) * 1000L;
+        metricFlushScheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread(runnable, "PingAccess-Plugin-Metric-Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exitCallRules = loadExitCallRules();
+        metricFlushScheduler.scheduleAtFixedRate(this::flushMetrics, metricIntervalMillis, metricIntervalMillis, TimeUnit.MILLISECONDS);
 
         getRequestReflector = getNewReflectionBuilder().invokeInstanceMethod("getRequest", true).build();
         getHeadersReflector = getNewReflectionBuilder().invokeInstanceMethod("getHeaders", true).build();
@@ -52,6 +88,15 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
         getPortReflector = getNewReflectionBuilder().invokeInstanceMethod("getPort", true).build();
     }
 
+    @Override
+    protected Map<String,String> getListOfCustomProperties() {
+        Map<String,String> customProperties = new HashMap<>();
+        customProperties.put(ERROR_SNAPSHOT_SAMPLE_RATE_PROPERTY, String.valueOf(DEFAULT_ERROR_SNAPSHOT_SAMPLE_RATE));
+        customProperties.put(METRIC_INTERVAL_SECONDS_PROPERTY, String.valueOf(DEFAULT_METRIC_INTERVAL_SECONDS));
+        customProperties.put(EXIT_CALL_RULES_PROPERTY, "");
+        return customProperties;
+    }
+
     @Override
     public List<Rule> initializeRules() {
         List<Rule> rules = new ArrayList<Rule>();
@@ -76,6 +121,8 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
         Map<String, String> properties = new HashMap<String, String>();
         Object exchange = params[0];
         Object request = null;
+        Object uri = null;
+        Object exchangeHost = null;
         Object targetHost = params[2];
         getLogger().debug("found targethost "+targetHost);
 
@@ -100,11 +147,30 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
             properties.put("HOST", "UNKNOWN-HOST");
             properties.put("PORT", "UNKNOWN-PORT");
         }
+        boolean requestFailed = false;
         try {
             request = getRequestReflector.execute(exchange.getClass().getClassLoader(), exchange);
             if (request != null) {
-                Object uri = getUriReflector.execute(request.getClass().getClassLoader(), request);
+                uri = getUriReflector.execute(request.getClass().getClassLoader(), request);
+            }
+        } catch( Exception e) {
+            getLogger().debug("Problem extracting URI from request; Exception: "+ e);
+            requestFailed = true;
+        }
+        //decide before building the URL and exit call properties, so skipped and sampled out calls stay cheap
+        if( exitCallRules.length > 0 ) {
+            Object ruleHost = properties.containsKey("HOST") ? null : getExchangeHost(exchange);
+            ExitCallRule exitCallRule = findExitCallRule(getBackendHost(properties, ruleHost), getBackendPort(properties), uri);
+            if( exitCallRule != null && !exitCallRule.shouldInstrument() ) {
+                exitCallRule.countUninstrumented();
+                this.getLogger().debug(String.format("onMethodBegin() end method: %s.%s() not instrumented by %s",className,methodName,exitCallRule.getName()));
+                return null;
+            }
+        }
+        try {
+            if (request != null && !requestFailed) {
                 Object host = getHostReflector.execute(exchange.getClass().getClassLoader(), exchange);
+                exchangeHost = host;
                 Object scheme = getSchemeReflector.execute(exchange.getClass().getClassLoader(), exchange);
                 if (host == null) host = properties.get("HOST");
                 if (scheme == null) scheme = "http";
@@ -114,8 +180,9 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
             }
         } catch( Exception e) {
             getLogger().debug("Problem extracting URL from request; Exception: "+ e);
-            properties.put("URL", "UNKNOWN-URL");
+            requestFailed = true;
         }
+        if( requestFailed ) properties.put("URL", "UNKNOWN-URL");
         if(properties.isEmpty()){
             //Hardcode the backend properties
             //getLogger().debug("Unable to extract outbound url, host, and port, hardcoding backend properties"+ " exchange class "+targetHost.getClass().getName());
@@ -145,22 +212,23 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
             }
         }
         this.getLogger().debug(String.format("onMethodBegin() end method: %s.%s() exitCall: %s",className,methodName,exitCall.getCorrelationHeader()));
-        return new State( transaction, exitCall);
+        return new State( transaction, exitCall, getBackendHost(properties, exchangeHost) +":"+ getBackendPort(properties));
     }
 
     public void onMethodEnd(Object state, Object object, String className, String methodName, Object[] params, Throwable exception, Object returnVal) {
         if( state == null ) return;
         Transaction transaction = ((State)state).transaction;
         ExitCall exitCall = ((State)state).exitCall;
+        String backend = ((State)state).backend;
         this.getLogger().debug(String.format("onMethodEnd() start method: %s.%s() exitCall: %s",className,methodName,exitCall.getCorrelationHeader()));
         if( exception != null ) {
             this.getLogger().debug("PingExitPointInterceptor.onMethodEnd() exception found: "+ exception.toString() );
-            transaction.markAsError( exception.toString() );
+            markBackendError( transaction, backend, exception );
         }
         CompletionStage<Object> completionStage = (CompletionStage<Object>) returnVal;
         completionStage.whenCompleteAsync( (response, cause ) -> { //this may be in another thread
             if( cause != null ) {
-                transaction.markAsError( cause.toString() );
+                markBackendError( transaction, backend, cause );
             }
             exitCall.end();
         });
@@ -168,12 +236,138 @@ public class PingAccessExitPointInterceptor extends MyBaseInterceptor {
         this.getLogger().debug(String.format("onMethodEnd() start method: %s.%s() exitCall: completed",className,methodName));
     }
 
+    /*
+    rules are listed in order in exitCallRules=name1,name2 and each one is configured with
+    exitCallRule.<name>.match=<regex searched in host:port/path>, exitCallRule.<name>.action=full|sample|skip
+    and, for sample, exitCallRule.<name>.sampleRate=N
+     */
+    protected ExitCallRule[] loadExitCallRules() {
+        List<ExitCallRule> rules = new ArrayList<ExitCallRule>();
+        for( String name : getProperty(EXIT_CALL_RULES_PROPERTY, "").split(",") ) {
+            name = name.trim();
+            if( name.isEmpty() ) continue;
+            String regex = getProperty(EXIT_CALL_RULE_PREFIX + name +".match", null);
+            String actionName = getProperty(EXIT_CALL_RULE_PREFIX + name +".action", ExitCallRule.Action.FULL.name());
+            if( regex == null ) {
+                getLogger().info("Exit call rule "+ name +" has no "+ EXIT_CALL_RULE_PREFIX + name +".match property, ignoring it");
+                continue;
+            }
+            try {
+                ExitCallRule.Action action = ExitCallRule.Action.valueOf(actionName.trim().toUpperCase());
+                ExitCallRule rule = new ExitCallRule(name, Pattern.compile(regex.trim()), action, getIntegerProperty(EXIT_CALL_RULE_PREFIX + name +".sampleRate", 1));
+                rules.add(rule);
+                getLogger().info("Loaded "+ rule);
+            } catch (PatternSyntaxException e) {
+                getLogger().info("Exit call rule "+ name +" has an invalid match pattern '"+ regex +"', ignoring it, exception: "+ e.getMessage());
+            } catch (IllegalArgumentException e) {
+                getLogger().info("Exit call rule "+ name +" has an invalid action '"+ actionName +"', expected full, sample, or skip, ignoring it");
+            }
+        }
+        return rules.toArray(new ExitCallRule[0]);
+    }
+
+    private Object getExchangeHost( Object exchange ) {
+        try {
+            return getHostReflector.execute(exchange.getClass().getClassLoader(), exchange);
+        } catch( Exception e) {
+            getLogger().debug("Problem extracting host from exchange; Exception: "+ e);
+            return null;
+        }
+    }
+
+    /*
+    first rule whose pattern is found in host:port/path wins, the query string is not part of the match
+     */
+    protected ExitCallRule findExitCallRule( String host, String port, Object uri ) {
+        if( exitCallRules.length == 0 ) return null;
+        StringBuilder target = new StringBuilder(64).append(host).append(':').append(port);
+        if( uri != null ) {
+            String path = uri.toString();
+            int queryIndex = path.indexOf('?');
+            target.append(path, 0, queryIndex < 0 ? path.length() : queryIndex);
+        }
+        for( ExitCallRule rule : exitCallRules ) {
+            if( rule.matches(target) ) return rule;
+        }
+        return null;
+    }
+
+    /*
+    without a TargetHost only the URL is set, so the backend key for error counters and metric paths falls back to
+    the exchange host, or UNKNOWN-HOST, instead of "null"
+     */
+    protected String getBackendHost( Map<String, String> properties, Object exchangeHost ) {
+        String host = properties.get("HOST");
+        if( host != null ) return host;
+        return exchangeHost != null ? exchangeHost.toString() : "UNKNOWN-HOST";
+    }
+
+    protected String getBackendPort( Map<String, String> properties ) {
+        String port = properties.get("PORT");
+        return port != null ? port : "UNKNOWN-PORT";
+    }
+
+    /*
+    count the failure against its backend and fingerprint, mark the transaction with the cached fingerprint message,
+    and only attach the full exception string to the snapshot on the first failure and every Nth one after that,
+    the per backend counts are published as a custom metric by the metric flush timer
+     */
+    protected void markBackendError( Transaction transaction, String backend, Throwable cause ) {
+        ExitCallErrorFingerprint fingerprint = ExitCallErrorFingerprint.classify(cause);
+        IntervalCounter[] counters = backendErrorCounters.get(backend);
+        if( counters == null ) {
+            counters = backendErrorCounters.computeIfAbsent(backend, key -> newIntervalCounters(ExitCallErrorFingerprint.values().length));
+        }
+        IntervalCounter counter = counters[fingerprint.ordinal()];
+        long count = counter.increment();
+        transaction.markAsError( fingerprint.getMessage() );
+        if( count == 1 || count % errorSnapshotSampleRate == 0 ) {
+            collectSnapshotData(transaction, "PingAccess-Backend-Error", cause.toString());
+            collectSnapshotData(transaction, "PingAccess-Backend-Error-Count", backend +" "+ fingerprint.name() +" "+ count);
+        }
+    }
+
+    /*
+    runs on the metric flush timer every metric interval, so counts land in the interval they happened in even when
+    the traffic stops; anything thrown here would cancel the schedule, so it is logged and swallowed
+     */
+    protected void flushMetrics() {
+        try {
+            ExitCallErrorFingerprint[] fingerprints = ExitCallErrorFingerprint.values();
+            for( Map.Entry<String, IntervalCounter[]> entry : backendErrorCounters.entrySet() ) {
+                IntervalCounter[] counters = entry.getValue();
+                for( int i = 0; i < counters.length; i++ ) {
+                    long unreported = counters[i].drain();
+                    if( unreported > 0 ) {
+                        reportMetric(BACKEND_ERROR_METRIC_PREFIX + entry.getKey() +"|"+ fingerprints[i].name(), unreported, "SUM", "SUM", "COLLECTIVE");
+                    }
+                }
+            }
+            for( ExitCallRule rule : exitCallRules ) {
+                long unreported = rule.drainUninstrumented();
+                if( unreported > 0 ) {
+                    reportMetric(UNINSTRUMENTED_METRIC_PREFIX + rule.getName(), unreported, "SUM", "SUM", "COLLECTIVE");
+                }
+            }
+        } catch (Throwable t) {
+            getLogger().info("Error flushing exit call metrics, exception: "+ t, t);
+        }
+    }
+
+    private static IntervalCounter[] newIntervalCounters( int size ) {
+        IntervalCounter[] counters = new IntervalCounter[size];
+        for( int i = 0; i < size; i++ ) counters[i] = new IntervalCounter();
+        return counters;
+    }
+
     public class State {
         public Transaction transaction;
         public ExitCall exitCall;
-        public State( Transaction transaction, ExitCall exitCall) {
+        public String backend;
+        public State( Transaction transaction, ExitCall exitCall, String backend) {
             this.transaction=transaction;
             this.exitCall=exitCall;
+            this.backend=backend;
         }
     }
 